@@ -22,6 +22,9 @@ import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.ArrayList;
 import java.util.Scanner;
 /**
@@ -34,6 +37,15 @@ public class Cafe {
    //login info for later use
    private static String authorisedUser = null;
 
+   // local journal new orders are written to before they reach the database
+   private static final String JOURNAL_FILE = "orders.journal";
+   private static final int JOURNAL_SIZE = 16 * 1024 * 1024;
+   private static OrderJournal journal = null;
+
+   // menu item prices by name, loaded at startup; orders are checked and
+   // priced against them without asking the database
+   private static Map<String, String> menuPrices = new HashMap<String, String>();
+
    // reference to physical database connection.
    private Connection _connection = null;
 
@@ -54,7 +66,7 @@ public class Cafe {
       System.out.print("Connecting to database...");
       try{
          // constructs the connection URL
-         String url = "jdbc:postgresql://127.0.0.1:" + dbport + "/" + dbname;
+         String url = connectionUrl(dbname, dbport);
          System.out.println ("Connection URL: " + url + "\n");
 
          // obtain a physical connection
@@ -67,6 +79,17 @@ public class Cafe {
       }//end catch
    }//end Cafe
 
+   /**
+    * Builds the JDBC URL of a database on this machine
+    *
+    * @param dbname the name of the database
+    * @param dbport the port of the database server
+    * @return the connection URL
+    */
+   public static String connectionUrl (String dbname, String dbport) {
+      return "jdbc:postgresql://127.0.0.1:" + dbport + "/" + dbname;
+   }//end connectionUrl
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -247,6 +270,14 @@ public class Cafe {
          String dbport = args[1];
          esql = new Cafe (dbname, dbport);
 
+         // the register needs the database at startup to log users in and
+         // to load the menu; after that, orders are replayed on a separate
+         // connection so that a slow database never blocks order entry
+         for (List<String> row : esql.executeQueryAndReturnResult("SELECT itemName, price FROM Menu"))
+            menuPrices.put(row.get(0).trim(), row.get(1).trim());
+         journal = new OrderJournal(JOURNAL_FILE, JOURNAL_SIZE);
+         journal.startReplayer(connectionUrl(dbname, dbport));
+
          boolean keepon = true;
          while(keepon) {
             // Display Login options
@@ -352,6 +383,12 @@ public class Cafe {
       }finally{
          // make sure to cleanup the created table and close the connection.
          try{
+            if(journal != null) {
+               int pending = journal.pending ();
+               if (pending > 0)
+                  System.out.println(pending + " order(s) will be sent to the database on the next start.");
+               journal.close ();
+            }//end if
             if(esql != null) {
                System.out.print("Disconnecting from database...");
                esql.cleanup ();
@@ -512,32 +549,37 @@ public class Cafe {
 	}
    }//end
 
-   public static Integer AddOrder(Cafe esql){  //FIND ORDERID OF THE FOOD// JACKIE DO THIS
+   /*
+    * Takes a new order for the logged in user
+    * The order is acknowledged once it is in the local journal
+    **/
+   public static void AddOrder(Cafe esql){
+      try{
+         Map<String, String> items = new LinkedHashMap<String, String>();
+         System.out.println("Enter the items you want to order, one per line. Enter an empty line when done.");
+         String item = in.readLine();
+         while (item != null && !item.trim().isEmpty()){
+            item = item.trim();
+            // ItemStatus holds one row per item, so each item is ordered once
+            if (!menuPrices.containsKey(item))
+               System.out.println(item + " is not on the menu, please try again.");
+            else if (items.containsKey(item))
+               System.out.println(item + " is already in your order.");
+            else
+               items.put(item, menuPrices.get(item));
+            item = in.readLine();
+         }//end while
+         if (items.isEmpty()){
+            System.out.println("No items ordered.");
+            return;
+         }//end if
 
-	//Following is dead code, tried this but coudln't get it to work.
-/*
-	try{
-	Scanner reader = new Scanner(System.in); //Reads from user
-	System.out.println("What do you want to order?");
-	String Input = reader.nextLine();
-	//INSERT INTO Orders VALUES(OrderID, login,paid,timeStamp,total)
-//	String query = String.format("SELECT '%s' FROM Menu", OrderID, user, false, timestamp,total );
-}
-	catch(Exception e){
-//	System.err.println (e.getMessage());
-	}
-*/
-      /*try{
-         Scanner reader = new Scanner(System.in); //Reads from user
-   	   System.out.println("What do you want to order?");
-   	   String Input = reader.nextLine();
-   	   INSERT INTO Orders(orderid,login,paid,timeStamp,total) VALUES (%d,'%s',false,CURRENT_TIMESTAMP,%f);
-   	   String query = String.format("")
+         String clientOrderId = journal.append(authorisedUser, items);
+         System.out.println("Order received! Reference: " + clientOrderId);
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
       }
-   	catch(Exception e){
-      System.err.println (e.getMessage());
-   	}*/
-   }//end 
+   }//end
 
    /*
     * Customer can updae comments for their order
@@ -0,0 +1,354 @@
+/*
+ * Order History Export
+ * ====================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class exports the Orders and ItemStatus history with
+ * COPY ... TO STDOUT.  Rows are streamed from the server straight into the
+ * output files, so memory use does not depend on the number of rows.
+ *
+ * The requested time range is split into equal slices and every slice is
+ * exported by its own worker on its own connection, producing one
+ * orders.partN.csv and one itemstatus.partN.csv file per slice.  Items are
+ * assigned to the slice of the order they belong to.
+ *
+ * The files are written to <outdir>.partial, which replaces <outdir> only
+ * once every slice succeeded.  A failed export stops the other workers and
+ * removes the staging directory, so <outdir> either holds a complete export
+ * or is left as it was.
+ *
+ * Usage:
+ *    java OrderExport <dbname> <port> <outdir>
+ *         [--from <timestamp>] [--to <timestamp>]
+ *         [--compress none|gzip|zstd] [--workers <n>]
+ *
+ * Timestamps use the format yyyy-mm-dd hh:mm:ss.  zstd compression pipes
+ * the output through the zstd command, which has to be on the PATH.  The
+ * program exits with status 1 when any part of the export failed.
+ */
+public class OrderExport {
+
+   // export settings
+   private final String _url;
+   private final File _outdir;
+   private final String _compress;
+
+   // connections of the running workers, closed to stop them after a failure
+   private final List<Connection> _open = Collections.synchronizedList(new ArrayList<Connection>());
+
+   /**
+    * Creates a new exporter
+    *
+    * @param dbname the name of the database
+    * @param dbport the port of the database server
+    * @param outdir the directory the files are written to
+    * @param compress none, gzip or zstd
+    */
+   public OrderExport (String dbname, String dbport, File outdir, String compress) {
+      this._url = "jdbc:postgresql://127.0.0.1:" + dbport + "/" + dbname;
+      this._outdir = outdir;
+      this._compress = compress;
+   }//end OrderExport
+
+   /**
+    * Exports every order received in [from, to) using the given number of
+    * parallel workers.
+    *
+    * @param from start of the range, inclusive
+    * @param to end of the range, exclusive
+    * @param workers the number of slices exported in parallel
+    * @return the number of exported rows
+    * @throws java.lang.Exception when a slice failed to export
+    */
+   public long export (Timestamp from, Timestamp to, int workers) throws Exception {
+      long start = from.getTime();
+      long step = Math.max(1, (to.getTime() - start + workers - 1) / workers);
+
+      File outdir = this._outdir.getAbsoluteFile();
+      final File staging = new File(outdir.getParentFile(), outdir.getName() + ".partial");
+      deleteTree(staging);
+      if (!staging.mkdirs())
+         throw new IOException("Unable to create " + staging.getPath());
+
+      ExecutorService pool = Executors.newFixedThreadPool(workers);
+      List<Future<Long>> parts = new ArrayList<Future<Long>>();
+      try{
+         for (int i = 0; i < workers; ++i){
+            final int part = i;
+            final Timestamp lo = new Timestamp(Math.min(start + i * step, to.getTime()));
+            final Timestamp hi = (i == workers - 1) ? to
+                               : new Timestamp(Math.min(start + (i + 1) * step, to.getTime()));
+            parts.add(pool.submit(new Callable<Long>(){
+               public Long call() throws Exception {
+                  return exportSlice(staging, part, lo, hi);
+               }
+            }));
+         }//end for
+
+         long rows = 0;
+         for (Future<Long> f : parts)
+            rows += f.get();
+         pool.shutdown();
+         publish(staging, outdir);
+         return rows;
+      }catch (Exception e){
+         // stop the other workers and wait for their cleanup before the
+         // staging directory is removed
+         synchronized (this._open){
+            for (Connection connection : this._open){
+               try{
+                  connection.close();
+               }catch (SQLException ce){
+                  // ignored.
+               }//end try
+            }//end for
+         }
+         pool.shutdownNow();
+         pool.awaitTermination(1, TimeUnit.MINUTES);
+         deleteTree(staging);
+         if (e instanceof ExecutionException && e.getCause() instanceof Exception)
+            throw (Exception) e.getCause();
+         throw e;
+      }//end try
+   }//end export
+
+   /*
+    * Exports one slice of the range on a dedicated connection
+    **/
+   private long exportSlice (File dir, int part, Timestamp lo, Timestamp hi)
+         throws SQLException, IOException, InterruptedException {
+      String range = String.format(
+         "timeStampRecieved >= '%s' AND timeStampRecieved < '%s'", lo, hi);
+      String orders = String.format(
+         "COPY (SELECT * FROM Orders WHERE %s ORDER BY orderid) " +
+         "TO STDOUT WITH (FORMAT csv, HEADER)", range);
+      String items = String.format(
+         "COPY (SELECT i.* FROM ItemStatus i JOIN Orders o ON i.orderid = o.orderid " +
+         "WHERE o.%s ORDER BY i.orderid, i.itemName) " +
+         "TO STDOUT WITH (FORMAT csv, HEADER)", range);
+
+      Connection connection = DriverManager.getConnection(this._url);
+      this._open.add(connection);
+      try{
+         // both files of a slice come from the same snapshot
+         connection.setAutoCommit(false);
+         connection.createStatement().execute(
+            "SET TRANSACTION ISOLATION LEVEL REPEATABLE READ READ ONLY");
+         CopyManager copy = connection.unwrap(PGConnection.class).getCopyAPI();
+         long rows = copyTo(copy, dir, orders, "orders.part" + part + ".csv");
+         rows += copyTo(copy, dir, items, "itemstatus.part" + part + ".csv");
+         connection.commit();
+         return rows;
+      }finally{
+         this._open.remove(connection);
+         connection.close();
+      }//end try
+   }//end exportSlice
+
+   /*
+    * Streams a COPY TO STDOUT into a (possibly compressed) file.  The data
+    * goes to a temporary file that is only renamed to its final name once
+    * the COPY succeeded, so a failed export never leaves a truncated file
+    * that looks complete.
+    **/
+   private long copyTo (CopyManager copy, File dir, String sql, String name)
+         throws SQLException, IOException, InterruptedException {
+      String ext = this._compress.equals("gzip") ? ".gz"
+                 : this._compress.equals("zstd") ? ".zst" : "";
+      File target = new File(dir, name + ext);
+      File temp = new File(dir, name + ext + ".tmp");
+
+      Process zstd = null;
+      OutputStream out = null;
+      boolean done = false;
+      try{
+         if (this._compress.equals("zstd")){
+            zstd = new ProcessBuilder("zstd", "-q", "-f", "-o", temp.getPath())
+               .redirectError(ProcessBuilder.Redirect.INHERIT)
+               .start();
+            out = new BufferedOutputStream(zstd.getOutputStream(), 1 << 16);
+         }else if (this._compress.equals("gzip")){
+            out = new GZIPOutputStream(new FileOutputStream(temp), 1 << 16);
+         }else{
+            out = new BufferedOutputStream(new FileOutputStream(temp), 1 << 16);
+         }//end if
+
+         long rows = copy.copyOut(sql, out);
+         out.close();
+         out = null;
+         if (zstd != null && zstd.waitFor() != 0)
+            throw new IOException("zstd failed to compress " + name);
+
+         Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+         done = true;
+         return rows;
+      }finally{
+         if (!done){
+            if (zstd != null)
+               zstd.destroyForcibly();
+            try{
+               if (out != null)
+                  out.close();
+            }catch (IOException e){
+               // ignored, the file is deleted anyway.
+            }//end try
+            if (zstd != null)
+               zstd.waitFor();
+            temp.delete();
+         }//end if
+      }//end try
+   }//end copyTo
+
+   /*
+    * Replaces the output directory with the finished staging directory
+    **/
+   private static void publish (File staging, File outdir) throws IOException {
+      File old = new File(outdir.getParentFile(), outdir.getName() + ".old");
+      deleteTree(old);
+      if (outdir.exists())
+         Files.move(outdir.toPath(), old.toPath());
+      Files.move(staging.toPath(), outdir.toPath());
+      deleteTree(old);
+   }//end publish
+
+   /*
+    * Deletes a file or a directory with everything in it
+    **/
+   private static void deleteTree (File file) {
+      File[] children = file.listFiles();
+      if (children != null)
+         for (File child : children)
+            deleteTree(child);
+      file.delete();
+   }//end deleteTree
+
+   /*
+    * Returns the oldest and newest order time, or null if there are no
+    * orders
+    **/
+   private Timestamp[] orderTimeRange () throws SQLException {
+      Connection connection = DriverManager.getConnection(this._url);
+      try{
+         Statement stmt = connection.createStatement();
+         ResultSet rs = stmt.executeQuery(
+            "SELECT MIN(timeStampRecieved), MAX(timeStampRecieved) FROM Orders");
+         if (!rs.next() || rs.getTimestamp(1) == null)
+            return null;
+         return new Timestamp[] { rs.getTimestamp(1), rs.getTimestamp(2) };
+      }finally{
+         connection.close();
+      }//end try
+   }//end orderTimeRange
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments, see the class comment
+    */
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         usage();
+         return;
+      }//end if
+
+      try{
+         Timestamp from = null;
+         Timestamp to = null;
+         String compress = "none";
+         int workers = 1;
+         for (int i = 3; i < args.length; i += 2){
+            if (i + 1 == args.length){
+               System.err.println ("Missing value for " + args[i]);
+               usage();
+               System.exit(1);
+            }//end if
+            switch (args[i]){
+               case "--from": from = Timestamp.valueOf(args[i + 1]); break;
+               case "--to": to = Timestamp.valueOf(args[i + 1]); break;
+               case "--compress": compress = args[i + 1]; break;
+               case "--workers": workers = Integer.parseInt(args[i + 1]); break;
+               default : throw new IllegalArgumentException("Unrecognized option " + args[i]);
+            }//end switch
+         }//end for
+         if (!compress.equals("none") && !compress.equals("gzip") && !compress.equals("zstd"))
+            throw new IllegalArgumentException("Unknown compression " + compress);
+         if (workers < 1)
+            throw new IllegalArgumentException("At least one worker is needed");
+
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         File outdir = new File(args[2]);
+         OrderExport export = new OrderExport(args[0], args[1], outdir, compress);
+
+         // an open range ends at the oldest or newest order
+         if (from == null || to == null){
+            Timestamp[] range = export.orderTimeRange();
+            if (range == null){
+               System.out.println("There are no orders to export.");
+               return;
+            }//end if
+            if (from == null)
+               from = range[0];
+            if (to == null)
+               to = new Timestamp(range[1].getTime() + 1);
+         }//end if
+
+         long begin = System.currentTimeMillis();
+         long rows = export.export(from, to, workers);
+         System.out.println(String.format("Exported %d rows in %d ms to %s",
+            rows, System.currentTimeMillis() - begin, outdir.getPath()));
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      }//end try
+   }//end main
+
+   /*
+    * Prints the command line usage
+    **/
+   private static void usage () {
+      System.err.println (
+         "Usage: " +
+         "java [-classpath <classpath>] " +
+         OrderExport.class.getName () +
+         " <dbname> <port> <outdir> [--from <timestamp>] [--to <timestamp>]" +
+         " [--compress none|gzip|zstd] [--workers <n>]");
+   }//end usage
+
+}//end OrderExport
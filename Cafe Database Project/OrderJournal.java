@@ -0,0 +1,444 @@
+/*
+ * Local Order Journal
+ * ===================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This class defines an append-only, memory-mapped write-ahead journal for
+ * new orders.  An order is acknowledged as soon as its record has been
+ * forced to the local disk, so order entry never waits on Postgres.  A
+ * background replayer thread then applies the journaled orders to the
+ * Orders and ItemStatus tables in the order they were written.
+ *
+ * Every record carries a client order id which is stored in
+ * Orders.clientOrderId.  Replaying a record that has already been applied
+ * (e.g. after a crash between the insert and the checkpoint) is a no-op.
+ * The record also holds the price of every item and the total at the time
+ * the order was taken, so the order that reaches the database is exactly
+ * the one the customer was told about.  A record the database rejects for
+ * good (e.g. an item that was removed from the menu in the meantime) is
+ * written to the .rejected file next to the journal and skipped.
+ *
+ * Applied records are reclaimed by moving the unapplied tail of the file
+ * back to the start.  The move never overwrites the tail itself, so a crash
+ * in the middle of it loses nothing; the journal therefore only reports
+ * that it is full once more than half of it holds unapplied orders.
+ *
+ * File layout:
+ *    header  : magic (int), padding (int), write position and applied
+ *              position (ints, written together as one aligned long)
+ *    records : length (int), UTF-8 payload (length bytes)
+ *    payload : clientOrderId TAB login TAB received TAB total, followed by
+ *              one NEWLINE price TAB itemName per item
+ */
+public class OrderJournal {
+
+   // marks a file as an order journal
+   private static final int MAGIC = 0x4361666B;
+
+   // size of the header that precedes the first record
+   private static final int HEADER_SIZE = 16;
+
+   // header offset of the write and applied positions
+   private static final int POSITIONS = 8;
+
+   // separates the fields and the lines of a journal record
+   private static final String FIELD_SEP = "\t";
+   private static final String LINE_SEP = "\n";
+
+   // how long the replayer waits before retrying a failed replay, the
+   // wait doubles after every failure up to the maximum
+   private static final long RETRY_MILLIS = 2000;
+   private static final long MAX_RETRY_MILLIS = 60000;
+
+   // the mapped journal file, and the file rejected records are moved to
+   private final RandomAccessFile _file;
+   private final File _rejected;
+   private final MappedByteBuffer _map;
+
+   // end of the last durable record, and end of the last applied record
+   private int _writePos;
+   private int _appliedPos;
+
+   // background replayer, null until startReplayer is called
+   private Thread _replayer = null;
+
+   // the replayer's connection, only used by the replayer thread and
+   // null while the database is unreachable
+   private Connection _connection = null;
+
+   /**
+    * Opens the journal file, creating it if it does not exist yet.  Records
+    * that were acknowledged but not applied before the last shutdown are
+    * kept and replayed once the replayer is started.  Only one register
+    * can use a journal file at a time.
+    *
+    * @param path the journal file
+    * @param capacity the size of the journal in bytes
+    * @throws java.io.IOException when the file can not be mapped or is in use
+    */
+   public OrderJournal (String path, int capacity) throws IOException {
+      boolean exists = new File(path).length() >= HEADER_SIZE;
+      this._file = new RandomAccessFile(path, "rw");
+      this._rejected = new File(path + ".rejected");
+
+      // another register writing the same file would overwrite our records
+      FileLock lock;
+      try{
+         lock = this._file.getChannel().tryLock();
+      }catch (OverlappingFileLockException e){
+         lock = null;
+      }//end try
+      if (lock == null){
+         this._file.close();
+         throw new IOException("Order journal " + path + " is in use by another register");
+      }//end if
+
+      this._map = this._file.getChannel().map(
+         FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, HEADER_SIZE));
+
+      if (exists && this._map.getInt(0) == MAGIC){
+         long positions = this._map.getLong(POSITIONS);
+         this._writePos = (int) (positions >>> 32);
+         this._appliedPos = (int) positions;
+      }else{
+         this._writePos = HEADER_SIZE;
+         this._appliedPos = HEADER_SIZE;
+         this._map.putInt(0, MAGIC);
+         writeHeader();
+      }//end if
+   }//end OrderJournal
+
+   /**
+    * Durably records a new order.  When this method returns the order
+    * survives a crash of this program or of the database.
+    *
+    * @param login the user placing the order
+    * @param items the ordered menu items and their current prices
+    * @return the client order id of the new order
+    * @throws java.io.IOException when the journal is full
+    */
+   public synchronized String append (String login, Map<String, String> items)
+         throws IOException {
+      String clientOrderId = UUID.randomUUID().toString();
+      BigDecimal total = BigDecimal.ZERO;
+      StringBuilder lines = new StringBuilder();
+      for (Map.Entry<String, String> item : items.entrySet()){
+         total = total.add(new BigDecimal(item.getValue()));
+         lines.append(LINE_SEP).append(item.getValue()).append(FIELD_SEP).append(item.getKey());
+      }//end for
+
+      StringBuilder payload = new StringBuilder();
+      payload.append(clientOrderId).append(FIELD_SEP);
+      payload.append(login).append(FIELD_SEP);
+      payload.append(new Timestamp(System.currentTimeMillis())).append(FIELD_SEP);
+      payload.append(total.toPlainString());
+      payload.append(lines);
+      byte[] bytes = payload.toString().getBytes(StandardCharsets.UTF_8);
+
+      // reclaim applied records when nothing is pending or space runs out
+      if (this._appliedPos == this._writePos
+          || this._writePos + 4 + bytes.length > this._map.capacity())
+         compact();
+      if (this._writePos + 4 + bytes.length > this._map.capacity())
+         throw new IOException("Order journal is full, try again later");
+
+      // the record must be on disk before the header points past it
+      this._map.putInt(this._writePos, bytes.length);
+      for (int i = 0; i < bytes.length; ++i)
+         this._map.put(this._writePos + 4 + i, bytes[i]);
+      this._map.force();
+      this._writePos += 4 + bytes.length;
+      writeHeader();
+      notifyAll();
+      return clientOrderId;
+   }//end append
+
+   /**
+    * Returns the number of orders that are journaled but not yet in the
+    * database.
+    *
+    * @return the number of pending orders
+    */
+   public synchronized int pending () {
+      int count = 0;
+      for (int pos = this._appliedPos; pos < this._writePos;
+           pos += 4 + this._map.getInt(pos))
+         ++count;
+      return count;
+   }//end pending
+
+   /**
+    * Starts the background thread that applies journaled orders.  The
+    * replayer opens its own connection so that a stalled insert never blocks
+    * the register.  It connects lazily and reconnects after the database
+    * restarts or the connection drops.
+    *
+    * @param url the JDBC URL of the database
+    */
+   public synchronized void startReplayer (final String url) {
+      if (this._replayer != null)
+         return;
+      this._replayer = new Thread(new Runnable(){
+         public void run(){
+            replayLoop(url);
+         }
+      }, "order-journal-replayer");
+      this._replayer.setDaemon(true);
+      this._replayer.start();
+   }//end startReplayer
+
+   /**
+    * Stops the replayer and unmaps the journal.  Pending orders stay in the
+    * file and are replayed on the next start.
+    */
+   public void close () {
+      Thread replayer;
+      synchronized (this){
+         replayer = this._replayer;
+         this._replayer = null;
+      }
+      if (replayer != null){
+         replayer.interrupt();
+         try{
+            replayer.join(RETRY_MILLIS);
+         }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+         }//end try
+      }//end if
+      synchronized (this){
+         this._map.force();
+         try{
+            this._file.close();
+         }catch (IOException e){
+            // ignored.
+         }//end try
+      }
+   }//end close
+
+   /*
+    * Applies records one at a time until the thread is interrupted.  A
+    * record is only checkpointed after its insert succeeded, so a database
+    * outage just delays replay.
+    **/
+   private void replayLoop (String url) {
+      long retry = RETRY_MILLIS;
+      try{
+         while (!Thread.currentThread().isInterrupted()){
+            String payload;
+            int length;
+            synchronized (this){
+               try{
+                  while (this._appliedPos == this._writePos)
+                     wait();
+               }catch (InterruptedException e){
+                  return;
+               }//end try
+               length = this._map.getInt(this._appliedPos);
+               byte[] bytes = new byte[length];
+               for (int i = 0; i < length; ++i)
+                  bytes[i] = this._map.get(this._appliedPos + 4 + i);
+               payload = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            try{
+               apply(url, payload);
+               retry = RETRY_MILLIS;
+            }catch (SQLException e){
+               String state = e.getSQLState();
+               boolean rejected = false;
+               if (state != null && state.startsWith("23")){
+                  // an integrity violation fails the same way on every
+                  // retry, so the record must not block the ones after it
+                  System.err.println("Order journal replay rejected an order, see "
+                     + this._rejected.getPath() + ": " + e.getMessage());
+                  try{
+                     reject(payload, e);
+                     rejected = true;
+                  }catch (IOException ioe){
+                     System.err.println("Unable to save rejected order: " + ioe.getMessage());
+                  }//end try
+               }else if ("42703".equals(state)){
+                  System.err.println("Orders has no clientOrderId column, " +
+                     "run add_client_order_id.sql on the database.");
+               }//end if
+
+               if (!rejected){
+                  System.err.println("Order journal replay failed, retrying in "
+                     + retry / 1000 + "s: " + e.getMessage());
+                  dropConnectionIfBroken();
+                  try{
+                     Thread.sleep(retry);
+                  }catch (InterruptedException ie){
+                     return;
+                  }//end try
+                  retry = Math.min(retry * 2, MAX_RETRY_MILLIS);
+                  continue;
+               }//end if
+            }//end try
+
+            synchronized (this){
+               // compact() may have moved the record while it was applied,
+               // so advance by its length, not to its old end
+               this._appliedPos += 4 + length;
+               writeHeader();
+            }
+         }//end while
+      }finally{
+         closeConnection();
+      }//end try
+   }//end replayLoop
+
+   /*
+    * Inserts one journaled order, connecting first if needed
+    **/
+   private void apply (String url, String payload) throws SQLException {
+      if (this._connection == null)
+         this._connection = DriverManager.getConnection(url);
+      Statement stmt = this._connection.createStatement();
+      try{
+         stmt.executeUpdate(replaySql(payload));
+      }finally{
+         stmt.close();
+      }//end try
+   }//end apply
+
+   /*
+    * Appends a rejected record and the reason to the .rejected file
+    **/
+   private void reject (String payload, SQLException reason) throws IOException {
+      FileOutputStream out = new FileOutputStream(this._rejected, true);
+      try{
+         String entry = "-- " + reason.getMessage().replace(LINE_SEP, " ") + LINE_SEP
+                      + payload + LINE_SEP + LINE_SEP;
+         out.write(entry.getBytes(StandardCharsets.UTF_8));
+         out.getFD().sync();
+      }finally{
+         out.close();
+      }//end try
+   }//end reject
+
+   /*
+    * Closes the connection after a failed replay unless it still works, so
+    * the next attempt reconnects.  pgjdbc never reconnects on its own.
+    **/
+   private void dropConnectionIfBroken () {
+      try{
+         if (this._connection != null && this._connection.isValid(5))
+            return;
+      }catch (SQLException e){
+         // treated as broken.
+      }//end try
+      closeConnection();
+   }//end dropConnectionIfBroken
+
+   /*
+    * Closes the replayer's connection if it is open
+    **/
+   private void closeConnection () {
+      try{
+         if (this._connection != null)
+            this._connection.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+      this._connection = null;
+   }//end closeConnection
+
+   /*
+    * Builds a single statement that inserts the order and its items with
+    * the total and the items of the record.  The order row is only inserted
+    * when its client order id is not present yet, and the items are only
+    * inserted together with a new order row, which makes the statement
+    * idempotent.  An item that is no longer on the menu violates the
+    * ItemStatus foreign key and fails the whole statement.
+    **/
+   private static String replaySql (String payload) {
+      String[] lines = payload.split(LINE_SEP, -1);
+      String[] fields = lines[0].split(FIELD_SEP, -1);
+      String clientOrderId = quote(fields[0]);
+      String login = quote(fields[1]);
+      String received = quote(fields[2]) + "::timestamp";
+      String total = new BigDecimal(fields[3]).toPlainString();
+
+      List<String> items = new ArrayList<String>();
+      for (int i = 1; i < lines.length; ++i)
+         items.add("(" + quote(lines[i].split(FIELD_SEP, 2)[1]) + ")");
+
+      return String.format(
+         "WITH o AS (" +
+         "INSERT INTO Orders (login, paid, timeStampRecieved, total, clientOrderId) " +
+         "SELECT %s, false, %s, %s, %s " +
+         "WHERE NOT EXISTS (SELECT 1 FROM Orders WHERE clientOrderId = %s) " +
+         "ON CONFLICT (clientOrderId) DO NOTHING " +
+         "RETURNING orderid) " +
+         "INSERT INTO ItemStatus (orderid, itemName, lastUpdated, status, comments) " +
+         "SELECT o.orderid, i.itemName, %s, 'Hasn''t started', '' " +
+         "FROM o, (VALUES %s) AS i(itemName)",
+         login, received, total, clientOrderId, clientOrderId,
+         received, String.join(",", items));
+   }//end replaySql
+
+   /*
+    * Quotes a value as a SQL string literal
+    **/
+   private static String quote (String value) {
+      return "'" + value.replace("'", "''") + "'";
+   }//end quote
+
+   /*
+    * Moves the unapplied records to the start of the file.  The move is only
+    * done when the target range ends before the records start, so until the
+    * header is rewritten the old copy stays intact.
+    **/
+   private void compact () {
+      int applied = this._appliedPos - HEADER_SIZE;
+      int pending = this._writePos - this._appliedPos;
+      if (applied == 0 || pending > applied)
+         return;
+      for (int i = 0; i < pending; ++i)
+         this._map.put(HEADER_SIZE + i, this._map.get(this._appliedPos + i));
+      this._map.force();
+      this._appliedPos = HEADER_SIZE;
+      this._writePos = HEADER_SIZE + pending;
+      writeHeader();
+   }//end compact
+
+   /*
+    * Persists the write and applied positions in a single aligned write, so
+    * a crash never leaves one updated without the other
+    **/
+   private void writeHeader () {
+      this._map.putLong(POSITIONS, ((long) this._writePos << 32) | (this._appliedPos & 0xFFFFFFFFL));
+      this._map.force();
+   }//end writeHeader
+
+}//end OrderJournal
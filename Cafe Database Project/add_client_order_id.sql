@@ -0,0 +1 @@
+ALTER TABLE Orders ADD COLUMN clientOrderId char(36) UNIQUE;
@@ -25,6 +25,7 @@ CREATE TABLE Orders(
 	paid boolean,
 	timeStampRecieved timestamp NOT NULL,
 	total real NOT NULL,
+	clientOrderId char(36) UNIQUE,
 	PRIMARY KEY(orderid));
 
 CREATE TABLE ItemStatus(
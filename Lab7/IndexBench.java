@@ -0,0 +1,443 @@
+/*
+ * Index Tuning Benchmark
+ * ======================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class benchmarks the Lab7 parts workload (queries.sql) against
+ * alternative index sets.  It replaces measure.sh, which only took a single
+ * sample per query from the \timing output of psql.
+ *
+ * Everything runs in its own schema, index_bench, so the lab's tables,
+ * their data and trigger1 are never touched.  The schema is recreated with
+ * generated part_nyc, part_sfo, supplier and color tables and dropped again
+ * at the end.
+ *
+ * queries.sql does not run as written, so the workload differs from it in
+ * these places:
+ *    1 : unchanged.
+ *    2 : the part_sfo branch selects S.on_hand instead of S.part_number and
+ *        compares color_name with 'Red' instead of 'RED', which matched no
+ *        color and made the branch return no rows.  UNION is kept.
+ *    3 : reconstructed, the original compares two uncorrelated subqueries
+ *        without parentheses.  It now lists the suppliers whose total
+ *        on_hand in part_nyc is larger than in part_sfo.
+ *    4 : reconstructed, the original is an unfinished skeleton.  It now
+ *        lists the suppliers with more parts in part_nyc than in part_sfo.
+ *    5 : SET on_hand instead of SET N.on_hand, which is not valid in an
+ *        UPDATE target list, and no table alias.
+ *    6 : no table alias, otherwise unchanged.
+ *
+ * For every index set the harness creates the indexes, runs VACUUM ANALYZE,
+ * captures the EXPLAIN (ANALYZE, BUFFERS) plan of every query and then
+ * times each query
+ *    cold : once per sample on a brand new connection, after running the
+ *           optional --cold-cmd (e.g. a script that restarts postgres and
+ *           drops the OS page cache).  Without --cold-cmd only the backend
+ *           caches are cold, shared buffers and the page cache are not.
+ *    warm : --runs times on one connection after a discarded warm-up run.
+ * UPDATE and DELETE queries run inside a transaction that is rolled back,
+ * and part_nyc is vacuumed after every such sample (outside the timed
+ * region), so every sample starts from the same data without dead tuples
+ * left behind by earlier samples.
+ *
+ * The report lists median, mean with its 95% confidence interval and p95
+ * per query and index set, and compares each set's warm samples against
+ * the set without indexes with a Mann-Whitney U test.
+ *
+ * Usage:
+ *    java IndexBench <dbname> <port> [--scale <rows>] [--runs <n>]
+ *         [--cold <n>] [--cold-cmd <command>] [--sorted] [--report <file>]
+ *
+ * --scale is the number of rows per parts table and --sorted loads the
+ * parts in on_hand order, which is what BRIN needs to be useful.
+ */
+public class IndexBench {
+
+   // the workload of queries.sql, by query number
+   private static final Map<String, String> QUERIES = new LinkedHashMap<String, String>();
+   static {
+      QUERIES.put("1",
+         "SELECT COUNT(*) FROM part_nyc N WHERE N.on_hand > 70");
+      QUERIES.put("2",
+         "SELECT SUM(N_UNION_S.on_hand) " +
+         "FROM (SELECT N.on_hand FROM part_nyc N " +
+         "WHERE N.color IN (SELECT color_id FROM color WHERE color_name = 'Red') " +
+         "UNION " +
+         "SELECT S.on_hand FROM part_sfo S " +
+         "WHERE S.color IN (SELECT color_id FROM color WHERE color_name = 'Red')) AS N_UNION_S");
+      QUERIES.put("3",
+         "SELECT Su.supplier_name FROM supplier Su " +
+         "WHERE (SELECT SUM(N.on_hand) FROM part_nyc N WHERE N.supplier = Su.supplier_id) " +
+         "> (SELECT SUM(S.on_hand) FROM part_sfo S WHERE S.supplier = Su.supplier_id)");
+      QUERIES.put("4",
+         "SELECT Su.supplier_name FROM supplier Su " +
+         "WHERE (SELECT COUNT(*) FROM part_nyc N WHERE N.supplier = Su.supplier_id) " +
+         "- (SELECT COUNT(*) FROM part_sfo S WHERE S.supplier = Su.supplier_id) > 0");
+      QUERIES.put("5",
+         "UPDATE part_nyc SET on_hand = on_hand - 10");
+      QUERIES.put("6",
+         "DELETE FROM part_nyc WHERE on_hand < 30");
+   }
+
+   // the index sets to compare, by name
+   private static final Map<String, List<String>> INDEX_SETS = new LinkedHashMap<String, List<String>>();
+   static {
+      INDEX_SETS.put("none", new ArrayList<String>());
+      INDEX_SETS.put("btree", Arrays.asList(
+         "CREATE INDEX bench_nyc_on_hand ON part_nyc (on_hand)",
+         "CREATE INDEX bench_nyc_color ON part_nyc (color)",
+         "CREATE INDEX bench_sfo_color ON part_sfo (color)",
+         "CREATE INDEX bench_nyc_supplier ON part_nyc (supplier)",
+         "CREATE INDEX bench_sfo_supplier ON part_sfo (supplier)"));
+      INDEX_SETS.put("partial", Arrays.asList(
+         "CREATE INDEX bench_nyc_on_hand_gt70 ON part_nyc (on_hand) WHERE on_hand > 70",
+         "CREATE INDEX bench_nyc_on_hand_lt30 ON part_nyc (on_hand) WHERE on_hand < 30",
+         "CREATE INDEX bench_nyc_color ON part_nyc (color)",
+         "CREATE INDEX bench_sfo_color ON part_sfo (color)",
+         "CREATE INDEX bench_nyc_supplier ON part_nyc (supplier)",
+         "CREATE INDEX bench_sfo_supplier ON part_sfo (supplier)"));
+      INDEX_SETS.put("covering", Arrays.asList(
+         "CREATE INDEX bench_nyc_on_hand ON part_nyc (on_hand)",
+         "CREATE INDEX bench_nyc_color ON part_nyc (color) INCLUDE (on_hand)",
+         "CREATE INDEX bench_sfo_color ON part_sfo (color) INCLUDE (on_hand)",
+         "CREATE INDEX bench_nyc_supplier ON part_nyc (supplier) INCLUDE (on_hand)",
+         "CREATE INDEX bench_sfo_supplier ON part_sfo (supplier) INCLUDE (on_hand)"));
+      INDEX_SETS.put("brin", Arrays.asList(
+         "CREATE INDEX bench_nyc_on_hand ON part_nyc USING brin (on_hand)",
+         "CREATE INDEX bench_sfo_on_hand ON part_sfo USING brin (on_hand)"));
+   }
+
+   // the schema the benchmark works in
+   private static final String SCHEMA = "index_bench";
+
+   // benchmark settings
+   private final String _url;
+   private int _scale = 50000;
+   private int _runs = 20;
+   private int _cold = 3;
+   private String _coldCmd = null;
+   private boolean _sorted = false;
+
+   /**
+    * Creates a new benchmark with the default settings
+    *
+    * @param dbname the name of the database
+    * @param dbport the port of the database server
+    */
+   public IndexBench (String dbname, String dbport) {
+      // unqualified table names resolve to the benchmark schema
+      this._url = "jdbc:postgresql://127.0.0.1:" + dbport + "/" + dbname +
+                  "?currentSchema=" + SCHEMA;
+   }//end IndexBench
+
+   /**
+    * Recreates the benchmark schema with generated part_nyc, part_sfo,
+    * supplier and color tables.  The data is seeded, so every run of the
+    * benchmark sees the same rows.
+    *
+    * @throws java.sql.SQLException when the data could not be loaded
+    */
+   public void load () throws SQLException {
+      String order = this._sorted ? "ORDER BY on_hand" : "";
+      Connection connection = DriverManager.getConnection(this._url);
+      try{
+         Statement stmt = connection.createStatement();
+         stmt.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+         stmt.execute("CREATE SCHEMA " + SCHEMA);
+         stmt.execute("CREATE TABLE supplier (supplier_id integer, supplier_name varchar(20))");
+         stmt.execute("INSERT INTO supplier VALUES (0, 'Bob'), (1, 'Ted'), (2, 'Carol'), " +
+            "(3, 'Alice'), (4, 'Jerry'), (5, 'Mickey'), (6, 'Phil'), (7, 'Vince'), " +
+            "(8, 'Bill'), (9, 'Donna')");
+         stmt.execute("CREATE TABLE color (color_id integer, color_name varchar(20))");
+         stmt.execute("INSERT INTO color VALUES (0, 'Red'), (1, 'Green'), (2, 'Blue'), " +
+            "(3, 'Black'), (4, 'White'), (5, 'Yellow'), (6, 'Orange'), (7, 'Purple'), " +
+            "(8, 'Brown'), (9, 'Grey')");
+         for (String table : new String[] { "part_nyc", "part_sfo" }){
+            stmt.execute("SELECT setseed(" + (table.equals("part_nyc") ? "0.17" : "0.71") + ")");
+            stmt.execute("CREATE TABLE " + table + " (part_number integer, supplier integer, " +
+               "color integer, on_hand integer, descr text)");
+            stmt.execute(String.format(
+               "INSERT INTO %s SELECT * FROM (SELECT g, (random() * 9)::int, " +
+               "(random() * 9)::int, (random() * 100)::int AS on_hand, 'Part ' || g " +
+               "FROM generate_series(1, %d) g) p %s", table, this._scale, order));
+         }//end for
+         stmt.close();
+      }finally{
+         connection.close();
+      }//end try
+   }//end load
+
+   /**
+    * Drops the benchmark schema
+    *
+    * @throws java.sql.SQLException when the schema could not be dropped
+    */
+   public void teardown () throws SQLException {
+      Connection connection = DriverManager.getConnection(this._url);
+      try{
+         Statement stmt = connection.createStatement();
+         stmt.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+         stmt.close();
+      }finally{
+         connection.close();
+      }//end try
+   }//end teardown
+
+   /**
+    * Runs the whole benchmark and writes the report
+    *
+    * @param out where the report is written to
+    * @throws java.lang.Exception when a query or the cold command failed
+    */
+   public void run (PrintStream out) throws Exception {
+      out.println(String.format("Lab7 index benchmark: %d rows per parts table%s, " +
+         "%d warm and %d cold samples per query", this._scale,
+         this._sorted ? " (sorted by on_hand)" : "", this._runs, this._cold));
+      out.println(this._coldCmd == null
+         ? "Cold samples use a new connection only; shared buffers and the OS cache stay warm."
+         : "Cold samples run after: " + this._coldCmd);
+      out.println();
+
+      // results by query, then by index set
+      Map<String, Map<String, Samples[]>> results = new LinkedHashMap<String, Map<String, Samples[]>>();
+      for (String query : QUERIES.keySet())
+         results.put(query, new LinkedHashMap<String, Samples[]>());
+
+      for (Map.Entry<String, List<String>> set : INDEX_SETS.entrySet()){
+         createIndexes(set.getValue());
+         out.println("=== Plans with index set '" + set.getKey() + "' ===");
+         for (Map.Entry<String, String> query : QUERIES.entrySet()){
+            out.println("--" + query.getKey());
+            for (String line : explain(query.getValue()))
+               out.println("   " + line);
+         }//end for
+         out.println();
+
+         for (Map.Entry<String, String> query : QUERIES.entrySet())
+            results.get(query.getKey()).put(set.getKey(),
+               new Samples[] { warm(query.getValue()), cold(query.getValue()) });
+      }//end for
+      createIndexes(new ArrayList<String>());
+
+      out.println("=== Timings (ms) ===");
+      out.println("p is the Mann-Whitney p-value of the warm samples against 'none'.");
+      for (Map.Entry<String, Map<String, Samples[]>> query : results.entrySet()){
+         out.println();
+         out.println("--" + query.getKey());
+         out.println(String.format("%-10s %10s %20s %10s %10s %9s %8s",
+            "indexes", "median", "mean +- 95% CI", "p95", "cold med", "speedup", "p"));
+         Samples base = query.getValue().get("none")[0];
+         for (Map.Entry<String, Samples[]> set : query.getValue().entrySet()){
+            Samples warm = set.getValue()[0];
+            Samples cold = set.getValue()[1];
+            out.println(String.format("%-10s %10.3f %11.3f +- %5.3f %10.3f %10.3f %8.2fx %8.4f",
+               set.getKey(), warm.median(), warm.mean(), warm.ci95(), warm.percentile(95),
+               cold.median(), base.median() / warm.median(),
+               Samples.mannWhitneyP(warm, base)));
+         }//end for
+      }//end for
+   }//end run
+
+   /*
+    * Drops the indexes of the previous set and creates the given ones
+    **/
+   private void createIndexes (List<String> indexes) throws SQLException {
+      Connection connection = DriverManager.getConnection(this._url);
+      try{
+         Statement stmt = connection.createStatement();
+         ResultSet rs = stmt.executeQuery(
+            "SELECT indexname FROM pg_indexes " +
+            "WHERE schemaname = '" + SCHEMA + "' AND indexname LIKE 'bench\\_%'");
+         List<String> old = new ArrayList<String>();
+         while (rs.next())
+            old.add(rs.getString(1));
+         for (String name : old)
+            stmt.execute("DROP INDEX " + SCHEMA + "." + name);
+         for (String sql : indexes)
+            stmt.execute(sql);
+         stmt.execute("VACUUM ANALYZE part_nyc");
+         stmt.execute("VACUUM ANALYZE part_sfo");
+         stmt.close();
+      }finally{
+         connection.close();
+      }//end try
+   }//end createIndexes
+
+   /*
+    * Returns the EXPLAIN (ANALYZE, BUFFERS) output of a query
+    **/
+   private List<String> explain (String query) throws SQLException {
+      List<String> plan = new ArrayList<String>();
+      Connection connection = DriverManager.getConnection(this._url);
+      try{
+         connection.setAutoCommit(false);
+         Statement stmt = connection.createStatement();
+         ResultSet rs = stmt.executeQuery("EXPLAIN (ANALYZE, BUFFERS) " + query);
+         while (rs.next())
+            plan.add(rs.getString(1));
+         stmt.close();
+         connection.rollback();
+         vacuumAfterDml(connection, query);
+      }finally{
+         connection.close();
+      }//end try
+      return plan;
+   }//end explain
+
+   /*
+    * Times the query on one connection after a discarded warm-up run
+    **/
+   private Samples warm (String query) throws SQLException {
+      Samples samples = new Samples();
+      Connection connection = DriverManager.getConnection(this._url);
+      try{
+         connection.setAutoCommit(false);
+         time(connection, query);
+         vacuumAfterDml(connection, query);
+         for (int i = 0; i < this._runs; ++i){
+            samples.add(time(connection, query));
+            vacuumAfterDml(connection, query);
+         }//end for
+      }finally{
+         connection.close();
+      }//end try
+      return samples;
+   }//end warm
+
+   /*
+    * Times the first run of the query on a new connection
+    **/
+   private Samples cold (String query) throws Exception {
+      Samples samples = new Samples();
+      for (int i = 0; i < this._cold; ++i){
+         if (this._coldCmd != null){
+            Process p = new ProcessBuilder("sh", "-c", this._coldCmd).inheritIO().start();
+            if (p.waitFor() != 0)
+               throw new IOException("Cold command failed: " + this._coldCmd);
+         }//end if
+         Connection connection = DriverManager.getConnection(this._url);
+         try{
+            connection.setAutoCommit(false);
+            samples.add(time(connection, query));
+            vacuumAfterDml(connection, query);
+         }finally{
+            connection.close();
+         }//end try
+      }//end for
+      return samples;
+   }//end cold
+
+   /*
+    * Runs the query, reads all of its rows and rolls back any changes
+    * @return the elapsed time in milliseconds
+    **/
+   private static double time (Connection connection, String query) throws SQLException {
+      Statement stmt = connection.createStatement();
+      long start = System.nanoTime();
+      if (stmt.execute(query)){
+         ResultSet rs = stmt.getResultSet();
+         while (rs.next())
+            rs.getString(1);
+      }//end if
+      long elapsed = System.nanoTime() - start;
+      stmt.close();
+      connection.rollback();
+      return elapsed / 1e6;
+   }//end time
+
+   /*
+    * Vacuums part_nyc after a rolled back UPDATE or DELETE.  Without it the
+    * dead tuples of every sample bloat the heap and the indexes, and each
+    * later sample would be slower than the one before.
+    **/
+   private static void vacuumAfterDml (Connection connection, String query) throws SQLException {
+      String verb = query.trim().split("\\s+")[0].toUpperCase();
+      if (!verb.equals("UPDATE") && !verb.equals("DELETE"))
+         return;
+      // VACUUM can not run inside a transaction block
+      connection.setAutoCommit(true);
+      Statement stmt = connection.createStatement();
+      try{
+         stmt.execute("VACUUM part_nyc");
+      }finally{
+         stmt.close();
+         connection.setAutoCommit(false);
+      }//end try
+   }//end vacuumAfterDml
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments, see the class comment
+    */
+   public static void main (String[] args) {
+      if (args.length < 2) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            IndexBench.class.getName () +
+            " <dbname> <port> [--scale <rows>] [--runs <n>] [--cold <n>]" +
+            " [--cold-cmd <command>] [--sorted] [--report <file>]");
+         return;
+      }//end if
+
+      PrintStream out = System.out;
+      IndexBench loaded = null;
+      try{
+         IndexBench bench = new IndexBench(args[0], args[1]);
+         for (int i = 2; i < args.length; ++i){
+            switch (args[i]){
+               case "--scale": bench._scale = Integer.parseInt(args[++i]); break;
+               case "--runs": bench._runs = Integer.parseInt(args[++i]); break;
+               case "--cold": bench._cold = Integer.parseInt(args[++i]); break;
+               case "--cold-cmd": bench._coldCmd = args[++i]; break;
+               case "--sorted": bench._sorted = true; break;
+               case "--report": out = new PrintStream(new FileOutputStream(args[++i])); break;
+               default : throw new IllegalArgumentException("Unrecognized option " + args[i]);
+            }//end switch
+         }//end for
+
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         System.out.println("Loading " + bench._scale + " rows per parts table...");
+         loaded = bench;
+         bench.load();
+         bench.run(out);
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         if (out != System.out)
+            out.close();
+         try{
+            if (loaded != null)
+               loaded.teardown();
+         }catch (SQLException e){
+            System.err.println ("Unable to drop schema " + SCHEMA + ": " + e.getMessage ());
+         }//end try
+      }//end try
+   }//end main
+
+}//end IndexBench
@@ -0,0 +1,280 @@
+/*
+ * Part Insert Benchmark
+ * =====================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class compares the throughput of PartLoader against the per-row
+ * trigger that triggers.sql used to install and that test.sh exercised.
+ * Everything runs in its own schema, part_bench, so the lab's part_nyc and
+ * part_number_seq are never touched.  The schema is recreated with a copy
+ * of part_nyc and part_number_seq and dropped again at the end.  The same
+ * generated parts are then loaded with
+ *    trigger-single : one autocommitted INSERT per row, with the old
+ *                     BEFORE INSERT trigger assigning the part number
+ *    trigger-batch  : JDBC batches without part numbers, with the trigger
+ *    default-single : one autocommitted INSERT per row, with the column
+ *                     default of triggers.sql, like test.sh now
+ *    loader-batch   : PartLoader with JDBC batches
+ *    loader-copy    : PartLoader with COPY FROM STDIN
+ * part_bench.part_nyc is truncated before every run, and the trigger or the
+ * column default is installed as the path needs it.
+ *
+ * Usage:
+ *    java PartLoadBench <dbname> <port> [--rows <n>] [--block <n>] [--runs <n>]
+ */
+public class PartLoadBench {
+
+   // the schema the benchmark works in
+   private static final String SCHEMA = "part_bench";
+
+   // benchmark settings
+   private final String _url;
+   private int _rows = 20000;
+   private int _block = 1000;
+   private int _runs = 3;
+
+   /**
+    * Creates a new benchmark with the default settings
+    *
+    * @param dbname the name of the database
+    * @param dbport the port of the database server
+    */
+   public PartLoadBench (String dbname, String dbport) {
+      // unqualified names, also those used by PartLoader and the trigger,
+      // resolve to the benchmark schema
+      this._url = "jdbc:postgresql://127.0.0.1:" + dbport + "/" + dbname +
+                  "?reWriteBatchedInserts=true&currentSchema=" + SCHEMA;
+   }//end PartLoadBench
+
+   /**
+    * Recreates the benchmark schema with part_nyc, part_number_seq and the
+    * old part number trigger function
+    *
+    * @throws java.sql.SQLException when the schema could not be created
+    */
+   public void setup () throws SQLException {
+      Connection connection = DriverManager.getConnection(this._url);
+      try{
+         Statement stmt = connection.createStatement();
+         stmt.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+         stmt.execute("CREATE SCHEMA " + SCHEMA);
+         stmt.execute("CREATE TABLE part_nyc (part_number integer, supplier integer, " +
+            "color integer, on_hand integer, descr text)");
+         stmt.execute("CREATE SEQUENCE part_number_seq START WITH 50000 CACHE 1000");
+         stmt.execute("CREATE OR REPLACE FUNCTION function1() RETURNS \"trigger\" AS " +
+            "$BODY$ BEGIN NEW.part_number := nextval('part_number_seq'); RETURN NEW; END; $BODY$ " +
+            "LANGUAGE plpgsql VOLATILE");
+         stmt.close();
+      }finally{
+         connection.close();
+      }//end try
+   }//end setup
+
+   /**
+    * Drops the benchmark schema
+    *
+    * @throws java.sql.SQLException when the schema could not be dropped
+    */
+   public void teardown () throws SQLException {
+      Connection connection = DriverManager.getConnection(this._url);
+      try{
+         Statement stmt = connection.createStatement();
+         stmt.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+         stmt.close();
+      }finally{
+         connection.close();
+      }//end try
+   }//end teardown
+
+   /**
+    * Times every insert path and prints the throughput
+    *
+    * @throws java.sql.SQLException when an insert failed
+    */
+   public void run () throws SQLException {
+      Map<String, Samples> results = new LinkedHashMap<String, Samples>();
+      for (String path : new String[] {
+            "trigger-single", "trigger-batch", "default-single", "loader-batch", "loader-copy" }){
+         Samples samples = new Samples();
+         for (int i = 0; i < this._runs; ++i)
+            samples.add(time(path));
+         results.put(path, samples);
+      }//end for
+
+      System.out.println(String.format("Inserting %d parts into " + SCHEMA + ".part_nyc, block size %d, %d runs",
+         this._rows, this._block, this._runs));
+      System.out.println(String.format("%-15s %12s %20s %12s %9s",
+         "path", "median ms", "mean +- 95% CI", "rows/s", "speedup"));
+      double base = results.get("trigger-single").median();
+      for (Map.Entry<String, Samples> result : results.entrySet()){
+         Samples s = result.getValue();
+         System.out.println(String.format("%-15s %12.1f %11.1f +- %6.1f %12.0f %8.1fx",
+            result.getKey(), s.median(), s.mean(), s.ci95(),
+            this._rows / (s.median() / 1000), base / s.median()));
+      }//end for
+   }//end run
+
+   /*
+    * Loads the parts once through the given path
+    * @return the elapsed time in milliseconds
+    **/
+   private double time (String path) throws SQLException {
+      Connection connection = DriverManager.getConnection(this._url);
+      try{
+         // the trigger paths run with the old trigger, everything else with
+         // the column default that replaced it
+         boolean trigger = path.startsWith("trigger-");
+         Statement stmt = connection.createStatement();
+         stmt.execute("TRUNCATE part_nyc");
+         stmt.execute("DROP TRIGGER IF EXISTS trigger1 ON part_nyc");
+         if (trigger){
+            stmt.execute("ALTER TABLE part_nyc ALTER COLUMN part_number DROP DEFAULT");
+            stmt.execute("CREATE TRIGGER trigger1 BEFORE INSERT ON part_nyc FOR EACH ROW " +
+               "EXECUTE PROCEDURE function1()");
+         }else{
+            stmt.execute("ALTER TABLE part_nyc ALTER COLUMN part_number " +
+               "SET DEFAULT nextval('part_number_seq')");
+         }//end if
+         stmt.close();
+
+         long start = System.nanoTime();
+         switch (path){
+            case "trigger-single": singleInserts(connection); break;
+            case "trigger-batch": triggerBatch(connection); break;
+            case "default-single": singleInserts(connection); break;
+            case "loader-batch":
+               new PartLoader(connection, this._block).load("part_nyc", parts(), PartLoader.Mode.BATCH);
+               break;
+            case "loader-copy":
+               new PartLoader(connection, this._block).load("part_nyc", parts(), PartLoader.Mode.COPY);
+               break;
+         }//end switch
+         return (System.nanoTime() - start) / 1e6;
+      }finally{
+         connection.close();
+      }//end try
+   }//end time
+
+   /*
+    * One statement and one transaction per row without a part number, as
+    * in test.sh
+    **/
+   private void singleInserts (Connection connection) throws SQLException {
+      Statement stmt = connection.createStatement();
+      try{
+         for (Iterator<PartLoader.Part> it = parts(); it.hasNext(); ){
+            PartLoader.Part part = it.next();
+            stmt.executeUpdate(String.format(
+               "INSERT INTO part_nyc (supplier, color, on_hand, descr) VALUES (%d, %d, %d, '%s')",
+               part.supplier, part.color, part.onHand, part.descr));
+         }//end for
+      }finally{
+         stmt.close();
+      }//end try
+   }//end singleInserts
+
+   /*
+    * Batched inserts that leave the part number to the trigger
+    **/
+   private void triggerBatch (Connection connection) throws SQLException {
+      connection.setAutoCommit(false);
+      PreparedStatement stmt = connection.prepareStatement(
+         "INSERT INTO part_nyc (supplier, color, on_hand, descr) VALUES (?, ?, ?, ?)");
+      try{
+         int pending = 0;
+         for (Iterator<PartLoader.Part> it = parts(); it.hasNext(); ){
+            PartLoader.Part part = it.next();
+            stmt.setInt(1, part.supplier);
+            stmt.setInt(2, part.color);
+            stmt.setInt(3, part.onHand);
+            stmt.setString(4, part.descr);
+            stmt.addBatch();
+            if (++pending == this._block){
+               stmt.executeBatch();
+               pending = 0;
+            }//end if
+         }//end for
+         stmt.executeBatch();
+         connection.commit();
+      }finally{
+         stmt.close();
+      }//end try
+   }//end triggerBatch
+
+   /*
+    * Generates the same parts for every path
+    **/
+   private Iterator<PartLoader.Part> parts () {
+      final int rows = this._rows;
+      return new Iterator<PartLoader.Part>(){
+         private int _next = 0;
+
+         public boolean hasNext(){
+            return this._next < rows;
+         }
+
+         public PartLoader.Part next(){
+            int i = this._next++;
+            return new PartLoader.Part(i % 10, (i / 10) % 10, (i * 37) % 100, "Description " + i);
+         }
+      };
+   }//end parts
+
+   /**
+    * The main execution method
+    *
+    * @param args the command line arguments, see the class comment
+    */
+   public static void main (String[] args) {
+      if (args.length < 2) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            PartLoadBench.class.getName () +
+            " <dbname> <port> [--rows <n>] [--block <n>] [--runs <n>]");
+         return;
+      }//end if
+
+      try{
+         PartLoadBench bench = new PartLoadBench(args[0], args[1]);
+         for (int i = 2; i < args.length; ++i){
+            switch (args[i]){
+               case "--rows": bench._rows = Integer.parseInt(args[++i]); break;
+               case "--block": bench._block = Integer.parseInt(args[++i]); break;
+               case "--runs": bench._runs = Integer.parseInt(args[++i]); break;
+               default : throw new IllegalArgumentException("Unrecognized option " + args[i]);
+            }//end switch
+         }//end for
+
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         bench.setup();
+         try{
+            bench.run();
+         }finally{
+            bench.teardown();
+         }//end try
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }//end try
+   }//end main
+
+}//end PartLoadBench
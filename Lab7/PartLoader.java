@@ -0,0 +1,220 @@
+/*
+ * Bulk Part Loader
+ * ================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * This class bulk inserts parts into part_nyc or part_sfo.
+ *
+ * Part numbers are reserved from part_number_seq a block at a time with a
+ * single round trip, so they never collide with numbers handed out by the
+ * part_number column default of triggers.sql.  The sequence has CACHE 1000,
+ * so the server hands this session numbers from a local block as well and
+ * only updates the shared sequence once per block.  The rows carry their
+ * part number, which skips the column default, and are streamed to the
+ * server either with COPY FROM STDIN or with JDBC batches.  The tables have
+ * no row triggers, so COPY can use its multi-row insert path.  Batches are
+ * fastest with reWriteBatchedInserts=true on the connection URL.
+ */
+public class PartLoader {
+
+   /**
+    * The ways rows can be sent to the server
+    */
+   public enum Mode { COPY, BATCH }
+
+   /**
+    * A part to insert, the part number is assigned by the loader
+    */
+   public static class Part {
+      public final int supplier;
+      public final int color;
+      public final int onHand;
+      public final String descr;
+
+      public Part (int supplier, int color, int onHand, String descr) {
+         this.supplier = supplier;
+         this.color = color;
+         this.onHand = onHand;
+         this.descr = descr;
+      }//end Part
+   }//end Part
+
+   // the connection rows are loaded on
+   private final Connection _connection;
+
+   // how many part numbers are reserved and how many rows are sent at once
+   private final int _blockSize;
+
+   /**
+    * Creates a new loader
+    *
+    * @param connection the connection rows are loaded on
+    * @param blockSize how many part numbers are reserved at a time
+    */
+   public PartLoader (Connection connection, int blockSize) {
+      if (blockSize < 1)
+         throw new IllegalArgumentException("Block size must be positive");
+      this._connection = connection;
+      this._blockSize = blockSize;
+   }//end PartLoader
+
+   /**
+    * Inserts all parts in a single transaction.
+    *
+    * @param table part_nyc or part_sfo
+    * @param parts the parts to insert
+    * @param mode how rows are sent to the server
+    * @return the number of inserted rows
+    * @throws java.sql.SQLException when the load failed, nothing is inserted then
+    */
+   public long load (String table, Iterator<Part> parts, Mode mode) throws SQLException {
+      if (!table.equals("part_nyc") && !table.equals("part_sfo"))
+         throw new IllegalArgumentException("Unknown parts table " + table);
+
+      boolean autoCommit = this._connection.getAutoCommit();
+      this._connection.setAutoCommit(false);
+      try{
+         long rows = (mode == Mode.COPY) ? copy(table, parts) : batch(table, parts);
+         this._connection.commit();
+         return rows;
+      }catch (Throwable e){
+         // anything that escapes, including a failing iterator, must not be
+         // committed by setAutoCommit below
+         try{
+            this._connection.rollback();
+         }catch (SQLException re){
+            e.addSuppressed(re);
+         }//end try
+         throw e;
+      }finally{
+         this._connection.setAutoCommit(autoCommit);
+      }//end try
+   }//end load
+
+   /*
+    * Streams the rows with COPY FROM STDIN, one COPY per block.  The part
+    * numbers are reserved before each COPY starts, because no other query
+    * can run on the connection while a COPY is in progress.
+    **/
+   private long copy (String table, Iterator<Part> parts) throws SQLException {
+      String sql = "COPY " + table + " (part_number, supplier, color, on_hand, descr) " +
+                   "FROM STDIN WITH (FORMAT csv)";
+      long rows = 0;
+      StringBuilder csv = new StringBuilder();
+      List<Part> block = nextBlock(parts);
+      while (!block.isEmpty()){
+         int[] numbers = reserve(block.size());
+         csv.setLength(0);
+         for (int i = 0; i < numbers.length; ++i){
+            Part part = block.get(i);
+            csv.append(numbers[i]).append(',')
+               .append(part.supplier).append(',')
+               .append(part.color).append(',')
+               .append(part.onHand).append(',');
+            if (part.descr != null)
+               csv.append('"').append(part.descr.replace("\"", "\"\"")).append('"');
+            csv.append('\n');
+         }//end for
+
+         byte[] bytes = csv.toString().getBytes(StandardCharsets.UTF_8);
+         CopyIn copy = this._connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+         try{
+            copy.writeToCopy(bytes, 0, bytes.length);
+            rows += copy.endCopy();
+         }finally{
+            if (copy.isActive())
+               copy.cancelCopy();
+         }//end try
+         block = nextBlock(parts);
+      }//end while
+      return rows;
+   }//end copy
+
+   /*
+    * Sends the rows as JDBC batches, one block per batch
+    **/
+   private long batch (String table, Iterator<Part> parts) throws SQLException {
+      PreparedStatement stmt = this._connection.prepareStatement(
+         "INSERT INTO " + table + " (part_number, supplier, color, on_hand, descr) " +
+         "VALUES (?, ?, ?, ?, ?)");
+      try{
+         long rows = 0;
+         List<Part> block = nextBlock(parts);
+         while (!block.isEmpty()){
+            int[] numbers = reserve(block.size());
+            for (int i = 0; i < numbers.length; ++i){
+               Part part = block.get(i);
+               stmt.setInt(1, numbers[i]);
+               stmt.setInt(2, part.supplier);
+               stmt.setInt(3, part.color);
+               stmt.setInt(4, part.onHand);
+               stmt.setString(5, part.descr);
+               stmt.addBatch();
+            }//end for
+            stmt.executeBatch();
+            rows += numbers.length;
+            block = nextBlock(parts);
+         }//end while
+         return rows;
+      }finally{
+         stmt.close();
+      }//end try
+   }//end batch
+
+   /*
+    * Takes up to one block of parts from the iterator
+    **/
+   private List<Part> nextBlock (Iterator<Part> parts) {
+      List<Part> block = new ArrayList<Part>(this._blockSize);
+      while (block.size() < this._blockSize && parts.hasNext())
+         block.add(parts.next());
+      return block;
+   }//end nextBlock
+
+   /*
+    * Reserves the given number of part numbers in one round trip.  The
+    * numbers are taken from part_number_seq itself, so they are unique even
+    * while other sessions insert through the column default.  With the
+    * sequence's CACHE most of these nextval calls are served from the
+    * session's cached block.  A single call that reserves a whole
+    * contiguous range (nextval followed by setval) is not safe while other
+    * sessions insert, unless they are locked out for the whole load.
+    **/
+   private int[] reserve (int count) throws SQLException {
+      int[] numbers = new int[count];
+      Statement stmt = this._connection.createStatement();
+      try{
+         ResultSet rs = stmt.executeQuery(
+            "SELECT nextval('part_number_seq') FROM generate_series(1, " + count + ")");
+         int i = 0;
+         while (rs.next())
+            numbers[i++] = rs.getInt(1);
+         return numbers;
+      }finally{
+         stmt.close();
+      }//end try
+   }//end reserve
+
+}//end PartLoader
@@ -0,0 +1,139 @@
+/*
+ * Benchmark Samples
+ * =================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class collects timing samples (in milliseconds) and computes the
+ * summary statistics used by the Lab7 benchmarks.
+ */
+public class Samples {
+
+   // two-sided 95% critical values of Student's t for 1..30 degrees of freedom
+   private static final double[] T95 = {
+      12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+      2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+      2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+
+   // the samples in the order they were added
+   private final List<Double> _values = new ArrayList<Double>();
+
+   /**
+    * Adds a sample
+    *
+    * @param millis the measured time in milliseconds
+    */
+   public void add (double millis) {
+      this._values.add(millis);
+   }//end add
+
+   public int count () {
+      return this._values.size();
+   }//end count
+
+   public double mean () {
+      double sum = 0;
+      for (double v : this._values)
+         sum += v;
+      return this._values.isEmpty() ? Double.NaN : sum / this._values.size();
+   }//end mean
+
+   /**
+    * Returns the sample standard deviation
+    *
+    * @return the standard deviation, or NaN for fewer than two samples
+    */
+   public double stddev () {
+      int n = this._values.size();
+      if (n < 2)
+         return Double.NaN;
+      double mean = mean();
+      double sum = 0;
+      for (double v : this._values)
+         sum += (v - mean) * (v - mean);
+      return Math.sqrt(sum / (n - 1));
+   }//end stddev
+
+   /**
+    * Returns the half width of the 95% confidence interval of the mean
+    *
+    * @return the half width, or NaN for fewer than two samples
+    */
+   public double ci95 () {
+      int n = this._values.size();
+      if (n < 2)
+         return Double.NaN;
+      double t = (n - 1 <= T95.length) ? T95[n - 2] : 1.960;
+      return t * stddev() / Math.sqrt(n);
+   }//end ci95
+
+   /**
+    * Returns a percentile using the nearest-rank method
+    *
+    * @param p the percentile, between 0 and 100
+    * @return the percentile, or NaN when there are no samples
+    */
+   public double percentile (double p) {
+      if (this._values.isEmpty())
+         return Double.NaN;
+      List<Double> sorted = new ArrayList<Double>(this._values);
+      Collections.sort(sorted);
+      int rank = (int) Math.ceil(p / 100.0 * sorted.size());
+      return sorted.get(Math.min(Math.max(rank, 1), sorted.size()) - 1);
+   }//end percentile
+
+   public double median () {
+      return percentile(50);
+   }//end median
+
+   /**
+    * Two-sided Mann-Whitney U test between two sets of samples.  The test
+    * makes no assumption about the shape of the distributions, which suits
+    * skewed query timings better than a t-test.
+    *
+    * @param a the first set of samples
+    * @param b the second set of samples
+    * @return the p-value (normal approximation), or NaN if a set is empty
+    */
+   public static double mannWhitneyP (Samples a, Samples b) {
+      int n1 = a.count();
+      int n2 = b.count();
+      if (n1 == 0 || n2 == 0)
+         return Double.NaN;
+
+      // U counts the pairs where a wins, ties count half
+      double u = 0;
+      for (double x : a._values)
+         for (double y : b._values)
+            u += (x < y) ? 1 : (x == y) ? 0.5 : 0;
+
+      double mu = n1 * (double) n2 / 2;
+      double sigma = Math.sqrt(n1 * (double) n2 * (n1 + n2 + 1) / 12);
+      if (sigma == 0)
+         return 1;
+      double z = Math.abs(u - mu) / sigma;
+      return Math.min(1, 2 * (1 - normalCdf(z)));
+   }//end mannWhitneyP
+
+   /*
+    * Standard normal CDF (Abramowitz and Stegun 26.2.17)
+    **/
+   private static double normalCdf (double z) {
+      double t = 1 / (1 + 0.2316419 * Math.abs(z));
+      double poly = t * (0.319381530 + t * (-0.356563782 + t * (1.781477937
+                  + t * (-1.821255978 + t * 1.330274429))));
+      double tail = Math.exp(-z * z / 2) / Math.sqrt(2 * Math.PI) * poly;
+      return z >= 0 ? 1 - tail : tail;
+   }//end normalCdf
+
+}//end Samples
@@ -3,7 +3,7 @@
 echo "Creating sequence..."
 cat <(echo 'CREATE SEQUENCE part_number_seq  START WITH 50000;')|psql -h 127.0.0.1 mydb
 
-echo "Creating trigger and procedure..."
+echo "Setting part number default..."
 psql -h 127.0.0.1 mydb < triggers.sql
 
 echo "Testing insert..."